@@ -1,13 +1,38 @@
 package com.salesforce.tests.fs;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 enum FSType {
     FILE, FOLDER
@@ -19,6 +44,12 @@ enum CommandsName {
     MKDIR("mkdir"),
     CD("cd"),
     TOUCh("touch"),
+    WRITE("write"),
+    APPEND("append"),
+    CAT("cat"),
+    STAT("stat"),
+    STATS("stats"),
+    WATCH("watch"),
     QUIT("quit");
 
     private final String text;
@@ -33,143 +64,1234 @@ enum CommandsName {
     }
 }
 
+enum FSEventType {
+    CREATED("created"),
+    MODIFIED("modified"),
+    // Nothing can be removed yet
+    DELETED("deleted"),
+    // Events were dropped because the subscriber fell behind, it should list the dir again
+    OVERFLOW("overflow");
+
+    private final String text;
+
+    FSEventType(final String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
+
 enum Errors {
     INVALID_FILE_DIR("Invalid File or Folder Name"),
     INVALID_COMMAND("Invalid Command"),
     DIR_ALREADY_EXIST("Directory already exists"),
     DIR_NOT_FOUND("Directory not found"),
+    FILE_NOT_FOUND("File not found"),
     UNRECOGNIZED_COMMAND("Unrecognized command");
 
-    private final String text;
-    
-    Errors(final String text) {
-        this.text = text;
+    private final String text;
+    
+    Errors(final String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
+
+class Logger {
+    // When set, the output of the current thread is captured instead of printed
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>();
+
+    static public void log(String s) {
+        write(s + System.lineSeparator());
+    }
+
+    static public void log(Errors e) {
+        log(e.toString());
+    }
+
+    /**
+    * Write already formatted output, as returned by capture()
+    */
+    static public void write(String text) {
+        StringBuilder buffer = BUFFER.get();
+        if (buffer != null) {
+            buffer.append(text);
+        } else {
+            System.out.print(text);
+        }
+    }
+
+    /**
+    * Run the task and return everything it logged from this thread
+    */
+    static public String capture(Runnable task) {
+        StringBuilder previous = BUFFER.get();
+        StringBuilder buffer = new StringBuilder();
+
+        BUFFER.set(buffer);
+        try {
+            task.run();
+        } finally {
+            BUFFER.set(previous);
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+    * Write raw bytes straight from their buffers, without building a String when printing
+    */
+    static public void write(List<ByteBuffer> bytes) {
+        StringBuilder buffer = BUFFER.get();
+
+        if (buffer != null) {
+            // Join before decoding, a character could be split between two buffers
+            int size = 0;
+            for (ByteBuffer b: bytes) {
+                size += b.remaining();
+            }
+            ByteBuffer joined = ByteBuffer.allocate(size);
+            for (ByteBuffer b: bytes) {
+                joined.put(b);
+            }
+            ((Buffer) joined).flip();
+            buffer.append(StandardCharsets.UTF_8.decode(joined));
+            return;
+        }
+
+        WritableByteChannel out = Channels.newChannel(System.out);
+        try {
+            for (ByteBuffer b: bytes) {
+                while (b.hasRemaining()) {
+                    out.write(b);
+                }
+            }
+        } catch (IOException ex) {
+            log(ex.toString());
+        }
+    }
+
+    private Logger() {}
+}
+
+/**
+ * ChunkAllocator: Hand out fixed-size chunks carved from large off-heap slabs.
+ * Released chunks go to a free list and are reused before allocating a new slab.
+ */
+class ChunkAllocator {
+    public static final int CHUNK_SIZE = 4096;
+    private static final int CHUNKS_PER_SLAB = 256;
+    private static final ChunkAllocator INSTANCE = new ChunkAllocator();
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+    private int slabs;
+
+    public static ChunkAllocator getAllocator() {
+        return INSTANCE;
+    }
+
+    private ChunkAllocator() {}
+
+    public synchronized ByteBuffer allocate() {
+        if (free.isEmpty()) {
+            addSlab();
+        }
+
+        ByteBuffer chunk = free.pop();
+        ((Buffer) chunk).clear();
+        return chunk;
+    }
+
+    public synchronized void release(ByteBuffer chunk) {
+        free.push(chunk);
+    }
+
+    public synchronized int getSlabs() {
+        return slabs;
+    }
+
+    private void addSlab() {
+        ByteBuffer slab = ByteBuffer.allocateDirect(CHUNK_SIZE * CHUNKS_PER_SLAB);
+
+        for (int i = 0; i < CHUNKS_PER_SLAB; i++) {
+            ((Buffer) slab).limit((i + 1) * CHUNK_SIZE);
+            ((Buffer) slab).position(i * CHUNK_SIZE);
+            free.add(slab.slice());
+        }
+        slabs++;
+    }
+}
+
+/**
+ * ChunkStore: Content-addressed store keeping a single copy of every distinct chunk.
+ * Files reference the stored chunk, which leaves the store with its last reference.
+ */
+class ChunkStore {
+    private static final ChunkStore INSTANCE = new ChunkStore();
+    private final HashMap<String, Chunk> chunks = new HashMap<String, Chunk>();
+    private volatile boolean enabled;
+
+    public static ChunkStore getStore() {
+        return INSTANCE;
+    }
+
+    private ChunkStore() {}
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+    * Return the stored chunk with the same content, moving the references of chunk to it.
+    * If there is none, chunk itself is stored and returned.
+    */
+    public Chunk intern(Chunk chunk) {
+        // The caller owns chunk, so it can be hashed before taking the lock
+        String hash = chunk.computeHash();
+
+        synchronized (this) {
+            Chunk stored = chunks.get(hash);
+
+            if (stored == chunk) {
+                return chunk;
+            }
+
+            if (stored == null) {
+                chunk.setHash(hash);
+                chunks.put(hash, chunk);
+                return chunk;
+            }
+
+            stored.adopt(chunk);
+            return stored;
+        }
+    }
+
+    /**
+    * Take the chunk out of the store so its only owner can write it.
+    * Return false if it is shared, then the owner has to copy it instead.
+    */
+    public synchronized boolean forget(Chunk chunk) {
+        if (chunk.isShared()) {
+            return false;
+        }
+
+        chunks.remove(chunk.getHash());
+        chunk.setHash(null);
+        return true;
+    }
+
+    /**
+    * Under the store lock so a chunk can't be found here while it is being freed
+    */
+    public synchronized void release(Chunk chunk) {
+        String hash = chunk.getHash();
+        if (chunk.unref()) {
+            chunks.remove(hash);
+        }
+    }
+
+    public synchronized void printStats() {
+        long references = 0;
+        for (Chunk chunk: chunks.values()) {
+            references += chunk.getRefs();
+        }
+        double ratio = chunks.isEmpty() ? 1 : (double) references / chunks.size();
+
+        Logger.log("Dedup: " + (enabled ? "on" : "off"));
+        Logger.log("Unique chunks: " + chunks.size());
+        Logger.log("Chunk references: " + references);
+        Logger.log("Dedup ratio: " + String.format(Locale.ROOT, "%.2f", ratio));
+        Logger.log("Memory saved: " + (references - chunks.size()) * ChunkAllocator.CHUNK_SIZE + " bytes");
+    }
+}
+
+/**
+ * Chunk: Refcounted piece of file content living in a slab.
+ * A chunk shared by several files is never written, the writer makes its own copy first.
+ */
+class Chunk implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private transient ByteBuffer data;
+    private transient AtomicInteger refs;
+    // Set while the chunk is in the ChunkStore
+    private transient volatile String hash;
+    private int length;
+
+    /**
+    * The new chunk is empty and owned by the caller
+    */
+    public Chunk() {
+        data = ChunkAllocator.getAllocator().allocate();
+        refs = new AtomicInteger(1);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isFull() {
+        return length == ChunkAllocator.CHUNK_SIZE;
+    }
+
+    public boolean isShared() {
+        return refs.get() > 1;
+    }
+
+    public int getRefs() {
+        return refs.get();
+    }
+
+    public boolean isInterned() {
+        return hash != null;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String computeHash() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(read());
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b: digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+    * Take over the references of a chunk with the same content and free it
+    */
+    public void adopt(Chunk duplicate) {
+        refs.addAndGet(duplicate.refs.get());
+        ChunkAllocator.getAllocator().release(duplicate.data);
+        duplicate.data = null;
+    }
+
+    /**
+    * Copy as much of src as fits at the end of the chunk, return how many bytes were copied
+    */
+    public int append(ByteBuffer src) {
+        int count = Math.min(src.remaining(), ChunkAllocator.CHUNK_SIZE - length);
+        ByteBuffer from = src.duplicate();
+        ByteBuffer to = data.duplicate();
+
+        ((Buffer) from).limit(from.position() + count);
+        ((Buffer) to).position(length);
+        to.put(from);
+        ((Buffer) src).position(src.position() + count);
+        length += count;
+
+        return count;
+    }
+
+    /**
+    * Read-only view of the content, no bytes are copied
+    */
+    public ByteBuffer read() {
+        ByteBuffer view = data.asReadOnlyBuffer();
+        ((Buffer) view).limit(length);
+        return view;
+    }
+
+    public Chunk copy() {
+        Chunk chunk = new Chunk();
+        chunk.append(read());
+        return chunk;
+    }
+
+    public Chunk retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        if (isInterned()) {
+            ChunkStore.getStore().release(this);
+        } else {
+            unref();
+        }
+    }
+
+    /**
+    * Drop a reference, return true if it was the last one and the chunk was freed
+    */
+    public boolean unref() {
+        if (refs.decrementAndGet() == 0) {
+            ChunkAllocator.getAllocator().release(data);
+            data = null;
+            return true;
+        }
+        return false;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        byte[] bytes = new byte[length];
+        read().get(bytes);
+        oos.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        byte[] bytes = new byte[length];
+        ois.readFully(bytes);
+
+        data = ChunkAllocator.getAllocator().allocate();
+        data.duplicate().put(bytes);
+        // Every file holding the chunk retains it again while it is read
+        refs = new AtomicInteger(0);
+    }
+
+    /**
+    * The snapshot holds every chunk once, but a chunk read from it could match one already stored
+    */
+    private Object readResolve() {
+        return ChunkStore.getStore().isEnabled() ? ChunkStore.getStore().intern(this) : this;
+    }
+}
+
+/**
+ * FileContent: The bytes of a file, as a list of chunks
+ */
+class FileContent implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private ArrayList<Chunk> chunks;
+    private long size;
+
+    public FileContent() {
+        chunks = new ArrayList<Chunk>();
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void append(byte[] bytes) {
+        ByteBuffer src = ByteBuffer.wrap(bytes);
+        int firstWritten = -1;
+
+        while (src.hasRemaining()) {
+            Chunk tail = writableTail();
+            if (firstWritten < 0) {
+                // A full tail is left as it is, the write starts in the next chunk
+                firstWritten = chunks.size() - 1;
+            }
+            size += tail.append(src);
+        }
+
+        if (firstWritten >= 0 && ChunkStore.getStore().isEnabled()) {
+            for (int i = firstWritten; i < chunks.size(); i++) {
+                chunks.set(i, ChunkStore.getStore().intern(chunks.get(i)));
+            }
+        }
+    }
+
+    /**
+    * Drop every chunk, they go back to the allocator once no other file uses them
+    */
+    public void clear() {
+        for (Chunk chunk: chunks) {
+            chunk.release();
+        }
+        chunks.clear();
+        size = 0;
+    }
+
+    public void print() {
+        List<ByteBuffer> views = new ArrayList<ByteBuffer>(chunks.size());
+        for (Chunk chunk: chunks) {
+            views.add(chunk.read());
+        }
+        Logger.write(views);
+    }
+
+    private Chunk writableTail() {
+        int last = chunks.size() - 1;
+        Chunk tail = last >= 0 ? chunks.get(last) : null;
+
+        if (tail == null || tail.isFull()) {
+            tail = new Chunk();
+            chunks.add(tail);
+        } else if (tail.isShared() || (tail.isInterned() && !ChunkStore.getStore().forget(tail))) {
+            // Copy on write
+            Chunk own = tail.copy();
+            tail.release();
+            chunks.set(last, own);
+            tail = own;
+        }
+
+        return tail;
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        for (Chunk chunk: chunks) {
+            chunk.retain();
+        }
+    }
+}
+/**
+ * FSObject: Represent a file or folder into a File System.
+ * The name, father and type never change, so any thread can read a path. The childs list is
+ * locked on every access, root's is shared by all the shards.
+ */
+class FSObject implements Serializable {
+    // Value computed for the first release, keeps the saved trees readable as the class changes
+    private static final long serialVersionUID = 1852549978489445525L;
+    private final String name;
+    private final FSObject father;
+    private ArrayList<FSObject> childs;
+    private final FSType type;
+    // Only set once something is written, empty files stay small in memory and in the snapshot
+    private FileContent content;
+    // Creation and last modification times, in milliseconds
+    private long ctime;
+    private long mtime;
+    public static final String SEPARATOR = "/";
+    public static final int MAX_CHARS = 100;
+
+    public FSObject(String name, FSType type, FSObject father) {
+        this.name = name;
+        this.type = type;
+        this.father = father;
+        this.childs = new ArrayList<FSObject>();
+        this.ctime = System.currentTimeMillis();
+        this.mtime = ctime;
+    }
+
+    @Override
+    public String toString() {
+        return SEPARATOR + name;
+    }
+
+    public String getAbsPath() {
+        if(father == null) {
+            return this.toString();
+        }
+        return father.getAbsPath() + this;
+    }
+
+    public void printAbsPath() {
+        Logger.log(getAbsPath());
+    }
+
+    private FSObject findChild(String childName, FSType childType) {
+        synchronized (childs) {
+            for(FSObject item: childs) {
+                if(item.name.compareTo(childName) == 0 && item.type == childType) {
+                    return item;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+    * Return the new child, or null if there is already one with this name and type
+    */
+    private FSObject addChild(String childName, FSType childType) {
+        synchronized (childs) {
+            if (findChild(childName, childType) != null) {
+                return null;
+            }
+
+            FSObject item = new FSObject(childName, childType, this);
+            childs.add(item);
+            return item;
+        }
+    }
+
+    /**
+    * Childs are only appended, so walking them by index is safe while others are added
+    */
+    private FSObject childAt(int index) {
+        synchronized (childs) {
+            return index < childs.size() ? childs.get(index) : null;
+        }
+    }
+
+    public boolean existDir(String dirName) {
+        return findChild(dirName, FSType.FOLDER) != null;
+    }
+
+    private boolean existFile(String fileName) {
+        return findChild(fileName, FSType.FILE) != null;
+    }
+
+    public FSObject getFile(String fileName) {
+        return findChild(fileName, FSType.FILE);
+    }
+
+    public FSObject getSubfolder(String dirName) {
+        return findChild(dirName, FSType.FOLDER);
+    }
+
+    public void createDir(String dirName) {
+        FSObject dir = addChild(dirName, FSType.FOLDER);
+
+        if (dir != null) {
+            WatchService.getWatchService().publish(FSEventType.CREATED, dir);
+        } else {
+            Logger.log(Errors.DIR_ALREADY_EXIST);
+        }
+    }
+
+    /**
+    * List until the limits are hit, starting at cursor if it isn't null.
+    * Return the cursor of the next entry to list, or null if the listing is complete.
+    * When this is root, its top-level subtrees are listed on their shards if there are any.
+    */
+    public String listFilesAndFolders(boolean recursive, ListLimits limits, int[] cursor, FSShards shards) {
+        return listFilesAndFolders(recursive, limits, cursor, 0, shards);
+    }
+
+    /**
+    * A cursor must point at an entry of this folder, going down only through folders of a recursive listing
+    */
+    public boolean isValidCursor(int[] cursor, boolean recursive) {
+        FSObject item = this;
+
+        for (int depth = 0; depth < cursor.length; depth++) {
+            if (depth > 0 && (!recursive || item.type != FSType.FOLDER)) {
+                return false;
+            }
+
+            item = item.childAt(cursor[depth]);
+            if (item == null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+    * The cursor holds a child index for every level from the listing root, depth is this level.
+    * An empty result means not even the header of this folder fit.
+    */
+    private String listFilesAndFolders(boolean recursive, ListLimits limits, int[] cursor, int depth,
+                                       FSShards shards) {
+        int start = 0;
+
+        if (cursor != null && depth < cursor.length) {
+            // Resuming inside this folder, its header was already listed
+            start = cursor[depth];
+        } else if(recursive) {
+            if (!limits.charge(getAbsPath())) {
+                return "";
+            }
+            printAbsPath();
+        } else if(father == null) {
+            // Print only if root. I don't know why the Unit Test "testLsSimple" need this.
+            if (!limits.charge(this.toString())) {
+                return "";
+            }
+            Logger.log(this.toString());
+        }
+
+        FSObject item;
+        for(int i = start; (item = childAt(i)) != null; i++) {
+            FSObject folder = item;
+
+            if(recursive && item.type == FSType.FOLDER) {
+                int[] itemCursor = (cursor != null && i == start && depth + 1 < cursor.length) ? cursor : null;
+                String[] next = new String[1];
+                Runnable listItem = () -> next[0] = folder.listFilesAndFolders(true, limits, itemCursor, depth + 1, null);
+
+                if (shards != null && father == null) {
+                    shards.run(folder, listItem);
+                } else {
+                    listItem.run();
+                }
+
+                if (next[0] != null) {
+                    return next[0].isEmpty() ? String.valueOf(i) : i + SEPARATOR + next[0];
+                }
+            } else {
+                if (!limits.charge(item.name)) {
+                    return String.valueOf(i);
+                }
+                Logger.log(item.name);
+            }
+        }
+
+        return null;
+    }
+
+    public FSObject getFather() {
+        return father;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+    * Return the folder under root that contains this object, or null for root itself
+    */
+    public FSObject getTopLevelFolder() {
+        if (father == null) {
+            return null;
+        }
+
+        FSObject item = this;
+        while (item.father.father != null) {
+            item = item.father;
+        }
+        return item;
+    }
+
+    /**
+    * Recursive listing where every top-level subtree is listed by its owner shard
+    * and the results are gathered back in order.
+    */
+    public void listFilesAndFolders(FSShards shards) {
+        printAbsPath();
+
+        List<CompletableFuture<String>> pending = new ArrayList<CompletableFuture<String>>();
+        FSObject item;
+        for(int i = 0; (item = childAt(i)) != null; i++) {
+            FSObject folder = item;
+            if(item.type == FSType.FOLDER) {
+                pending.add(shards.submit(folder, () -> folder.listFilesAndFolders(true, ListLimits.NONE, null, null)));
+            } else {
+                pending.add(CompletableFuture.completedFuture(item.name + System.lineSeparator()));
+            }
+        }
+
+        for(CompletableFuture<String> result: pending) {
+            Logger.write(FSShards.await(result));
+        }
+    }
+
+    public void createFile(String fileName) {
+        FSObject file = addChild(fileName, FSType.FILE);
+
+        if (file != null) {
+            WatchService.getWatchService().publish(FSEventType.CREATED, file);
+        } else {
+            // touch on an existing file
+            getFile(fileName).mtime = System.currentTimeMillis();
+        }
+    }
+
+    public long getSize() {
+        return content != null ? content.getSize() : 0;
+    }
+
+    public long getCtime() {
+        return ctime;
     }
 
-    @Override
-    public String toString() {
-        return text;
+    public long getMtime() {
+        return mtime;
     }
-}
 
-class Logger {
-    static public void log(String s) {
-        System.out.println(s);
+    /**
+    * Replace or append to the content of a file, creating it if it doesn't exist
+    */
+    public void writeFile(String fileName, String text, boolean append) {
+        FSObject file = addChild(fileName, FSType.FILE);
+        // A new file is a single created event, with its content already there
+        FSEventType event = FSEventType.CREATED;
+
+        if (file == null) {
+            file = getFile(fileName);
+            event = FSEventType.MODIFIED;
+        }
+
+        if (file.content == null) {
+            file.content = new FileContent();
+        } else if (!append) {
+            file.content.clear();
+        }
+        file.content.append(text.getBytes(StandardCharsets.UTF_8));
+        file.mtime = System.currentTimeMillis();
+        WatchService.getWatchService().publish(event, file);
     }
 
-    static public void log(Errors e) {
-        System.out.println(e.toString());
+    /**
+    * True if this is dir or is inside it
+    */
+    public boolean isInside(FSObject dir) {
+        for (FSObject item = this; item != null; item = item.father) {
+            if (item == dir) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private Logger() {}
+    public void printFile(String fileName) {
+        FSObject file = getFile(fileName);
+
+        if (file == null) {
+            Logger.log(Errors.FILE_NOT_FOUND);
+        } else if (file.content != null) {
+            file.content.print();
+        }
+    }
+
+    /**
+    * Print the metadata of the file, or else the folder, called itemName
+    */
+    public void printStat(String itemName) {
+        FSObject item = getFile(itemName);
+        if (item == null) {
+            item = getSubfolder(itemName);
+        }
+
+        if (item == null) {
+            Logger.log(Errors.FILE_NOT_FOUND);
+            return;
+        }
+
+        Logger.log((item.type == FSType.FILE ? "File: " : "Folder: ") + item.name);
+        Logger.log("Size: " + item.getSize());
+        Logger.log("Ctime: " + Instant.ofEpochMilli(item.getCtime()));
+        Logger.log("Mtime: " + Instant.ofEpochMilli(item.getMtime()));
+    }
+
+    /**
+    * Give the content of every file in this subtree back to the allocator
+    */
+    public void releaseContent() {
+        if (content != null) {
+            content.clear();
+        }
+        FSObject item;
+        for(int i = 0; (item = childAt(i)) != null; i++) {
+            item.releaseContent();
+        }
+    }
 }
+
 /**
- * FSObject: Represent a file or folder into a File System
+ * FSEvent: A change on the object at path
  */
-class FSObject implements Serializable {
-    private String name;
-    private FSObject father;
-    private ArrayList<FSObject> childs;
-    private FSType type;
-    public static final String SEPARATOR = "/";
-    public static final int MAX_CHARS = 100;
+class FSEvent {
+    private final FSEventType type;
+    private final String path;
 
-    public FSObject(String name, FSType type, FSObject father) {
-        this.name = name;
+    public FSEvent(FSEventType type, String path) {
         this.type = type;
-        this.father = father;
-        this.childs = new ArrayList<FSObject>();
+        this.path = path;
+    }
+
+    public FSEventType getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+    * True if delivering this event already tells everything next says.
+    * A pending creation covers a later modification.
+    */
+    public boolean covers(FSEvent next) {
+        return type == next.type || (type == FSEventType.CREATED && next.type == FSEventType.MODIFIED);
     }
 
     @Override
     public String toString() {
-        return SEPARATOR + name;
+        return type + " " + path;
     }
+}
 
-    public String getAbsPath() {
-        if(father == null) {
-            return this.toString();
+/**
+ * WatchSubscription: Events of a dir, or of its whole subtree, waiting in a ring buffer for the listener.
+ * Events on a path that is already pending are coalesced. When the ring is full new events are
+ * dropped instead of blocking the writer, and the listener gets a single overflow event instead.
+ */
+class WatchSubscription {
+    private final FSObject dir;
+    private final boolean recursive;
+    private final Consumer<FSEvent> listener;
+    private final FSEvent[] ring;
+    private final HashMap<String, FSEvent> pendingByPath = new HashMap<String, FSEvent>();
+    private int head;
+    private int count;
+    private boolean overflow;
+
+    public WatchSubscription(FSObject dir, boolean recursive, Consumer<FSEvent> listener, int capacity) {
+        this.dir = dir;
+        this.recursive = recursive;
+        this.listener = listener;
+        this.ring = new FSEvent[capacity];
+    }
+
+    public boolean matches(FSObject item) {
+        FSObject father = item.getFather();
+        return father != null && (recursive ? father.isInside(dir) : father == dir);
+    }
+
+    public synchronized void offer(FSEvent event) {
+        FSEvent pending = pendingByPath.get(event.getPath());
+        if (pending != null && pending.covers(event)) {
+            return;
         }
-        return father.getAbsPath() + this;
+
+        if (count == ring.length) {
+            overflow = true;
+            return;
+        }
+
+        ring[(head + count) % ring.length] = event;
+        count++;
+        pendingByPath.put(event.getPath(), event);
     }
 
-    public void printAbsPath() {
-        Logger.log(getAbsPath());
+    /**
+    * Hand every pending event to the listener, which runs outside the lock
+    */
+    public void deliver() {
+        FSEvent event;
+        while ((event = poll()) != null) {
+            listener.accept(event);
+        }
     }
 
-    public boolean existDir(String dirName) {
-        for(FSObject item: childs) {
-            if(item.name.compareTo(dirName) == 0 && item.type == FSType.FOLDER) {
-                return true;
+    private synchronized FSEvent poll() {
+        if (count == 0) {
+            if (overflow) {
+                overflow = false;
+                return new FSEvent(FSEventType.OVERFLOW, dir.getAbsPath());
             }
+            return null;
         }
-        return false;
+
+        FSEvent event = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        count--;
+
+        if (pendingByPath.get(event.getPath()) == event) {
+            pendingByPath.remove(event.getPath());
+        }
+
+        return event;
     }
+}
 
-    private boolean existFile(String fileName) {
-        for(FSObject item: childs) {
-            if(item.name.compareTo(fileName) == 0 && item.type == FSType.FILE) {
-                return true;
-            }
+/**
+ * WatchService: Publish the changes on the tree to the subscriptions on the dirs containing them.
+ * A mutating thread only queues the events, a dispatcher thread hands them to the listeners, so a
+ * slow listener never slows the writers down.
+ * The watch command listens for the session: its events wait in a queue that the session prints
+ * after each command, once the dispatcher caught up. The event lines of a command always come
+ * right after its own output and before the output of the next command. Events of the path based
+ * writers, which run outside the session, are printed after the next command.
+ */
+class WatchService {
+    private static final WatchService INSTANCE = new WatchService();
+    private static final int BUFFER_SIZE = 1024;
+    private final CopyOnWriteArrayList<WatchSubscription> subscriptions =
+            new CopyOnWriteArrayList<WatchSubscription>();
+    private final ConcurrentLinkedQueue<FSEvent> sessionEvents = new ConcurrentLinkedQueue<FSEvent>();
+    // Number of publish calls that queued an event, and how many of them the dispatcher handed over
+    private final AtomicLong published = new AtomicLong();
+    private volatile long delivered;
+    private volatile Thread dispatcher;
+    private volatile Thread waitingSession;
+    private volatile boolean running;
+
+    public static WatchService getWatchService() {
+        return INSTANCE;
+    }
+
+    private WatchService() {}
+
+    public synchronized void subscribe(FSObject dir, boolean recursive, Consumer<FSEvent> listener) {
+        subscriptions.add(new WatchSubscription(dir, recursive, listener, BUFFER_SIZE));
+
+        if (dispatcher == null) {
+            running = true;
+            dispatcher = new Thread(this::dispatch, "fs-watch");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
         }
-        return false;
     }
 
-    public FSObject getSubfolder(String dirName) {
-        for(FSObject item: childs) {
-            if(item.name.compareTo(dirName) == 0 && item.type == FSType.FOLDER) {
-                return item;
+    /**
+    * Watch for the session, the events are printed by printSessionEvents()
+    */
+    public void subscribeSession(FSObject dir, boolean recursive) {
+        subscribe(dir, recursive, sessionEvents::add);
+    }
+
+    /**
+    * Called by the thread that changed item. Never blocks on the subscribers.
+    */
+    public void publish(FSEventType type, FSObject item) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        FSEvent event = null;
+        for (WatchSubscription subscription: subscriptions) {
+            if (subscription.matches(item)) {
+                if (event == null) {
+                    event = new FSEvent(type, item.getAbsPath());
+                }
+                subscription.offer(event);
             }
         }
 
-        return null;
+        if (event != null) {
+            published.incrementAndGet();
+            Thread target = dispatcher;
+            if (target != null) {
+                LockSupport.unpark(target);
+            }
+        }
     }
 
-    public void createDir(String dirName) {
-        if (!this.existDir(dirName)) {
-            childs.add(new FSObject(dirName, FSType.FOLDER, this));
-        } else {
-            Logger.log(Errors.DIR_ALREADY_EXIST);
+    /**
+    * Wait until the dispatcher handed over every event published so far
+    */
+    public void awaitDelivery() {
+        long target = published.get();
+
+        waitingSession = Thread.currentThread();
+        while (delivered < target && dispatcher != null) {
+            LockSupport.park(this);
         }
+        waitingSession = null;
     }
 
-    public void listFilesAndFolders(boolean recursive) {
-        if(recursive) {
-            printAbsPath();
-        }else if(father == null) {
-            // Print only if root. I don't know why the Unit Test "testLsSimple" need this.
-            Logger.log(this.toString());
+    /**
+    * Called by the session after each command
+    */
+    public void printSessionEvents() {
+        awaitDelivery();
+
+        FSEvent event;
+        while ((event = sessionEvents.poll()) != null) {
+            Logger.log(event.toString());
         }
+    }
 
-        for(FSObject item: childs) {
-            if(recursive && item.type == FSType.FOLDER) {
-                item.listFilesAndFolders(true);
-            } else {
-                Logger.log(item.name);
+    /**
+    * Deliver the events already published and drop every subscription
+    */
+    public synchronized void close() {
+        if (dispatcher == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        subscriptions.clear();
+        dispatcher = null;
+    }
+
+    private void dispatch() {
+        while (true) {
+            // Read before draining, so nothing published before close() is missed
+            boolean stopping = !running;
+            // Every publish counted here offered its event before, so the drain below sees it
+            long target = published.get();
+
+            for (WatchSubscription subscription: subscriptions) {
+                subscription.deliver();
             }
+
+            delivered = target;
+            Thread session = waitingSession;
+            if (session != null) {
+                LockSupport.unpark(session);
+            }
+
+            if (stopping) {
+                return;
+            }
+            LockSupport.park(this);
         }
     }
+}
 
-    public FSObject getFather() {
-        return father;
+/**
+ * ListLimits: Cost limits of a single listing. A zero limit means no limit.
+ * The first entry is always listed so every page makes progress.
+ */
+class ListLimits {
+    public static final String MAX_NODES_PROPERTY = "fs.ls.maxNodes";
+    public static final String MAX_BYTES_PROPERTY = "fs.ls.maxBytes";
+    public static final String MAX_MILLIS_PROPERTY = "fs.ls.maxMillis";
+    public static final String TRUNCATED = "Listing truncated, cursor: ";
+    public static final ListLimits NONE = new ListLimits(0, 0, 0);
+
+    private final long maxNodes;
+    private final long maxBytes;
+    private final long maxNanos;
+    private final long start;
+    private long nodes;
+    private long bytes;
+
+    public ListLimits(long maxNodes, long maxBytes, long maxMillis) {
+        this.maxNodes = maxNodes;
+        this.maxBytes = maxBytes;
+        this.maxNanos = maxMillis * 1000000;
+        this.start = System.nanoTime();
     }
 
-    public void createFile(String fileName) {
-        if(!this.existFile(fileName)) {
-            FSObject file = new FSObject(fileName, FSType.FILE, this);
-            childs.add(file);
+    /**
+    * Limits configured by system properties, the clock starts now
+    */
+    public static ListLimits fromProperties() {
+        return new ListLimits(Long.getLong(MAX_NODES_PROPERTY, 0), Long.getLong(MAX_BYTES_PROPERTY, 0),
+                Long.getLong(MAX_MILLIS_PROPERTY, 0));
+    }
+
+    public boolean isUnlimited() {
+        return maxNodes == 0 && maxBytes == 0 && maxNanos == 0;
+    }
+
+    /**
+    * Account for one more output line, return false if it doesn't fit in the limits
+    */
+    public boolean charge(String line) {
+        if (isUnlimited()) {
+            return true;
+        }
+
+        long lineBytes = line.getBytes(StandardCharsets.UTF_8).length + System.lineSeparator().length();
+        if (nodes > 0 && ((maxNodes > 0 && nodes >= maxNodes)
+                || (maxBytes > 0 && bytes + lineBytes > maxBytes)
+                || (maxNanos > 0 && System.nanoTime() - start >= maxNanos))) {
+            return false;
+        }
+
+        nodes++;
+        bytes += lineBytes;
+        return true;
+    }
+
+    /**
+    * Ex. 3/0/12, return null if it is not a valid cursor
+    */
+    public static int[] parseCursor(String cursor) {
+        String[] indexes = cursor.split(FSObject.SEPARATOR);
+        int[] parsed = new int[indexes.length];
+
+        try {
+            for (int i = 0; i < indexes.length; i++) {
+                parsed[i] = Integer.parseInt(indexes[i]);
+                if (parsed[i] < 0) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        return parsed;
+    }
+}
+
+/**
+ * FSShards: Partition the top-level subtrees under root across single-threaded workers.
+ * The childs and content of a subtree are only touched by the shard that owns it, chosen by the
+ * first path component. Root itself has no shard, see OSFileSystem.runOn.
+ */
+class FSShards {
+    private final ExecutorService[] workers;
+
+    public FSShards(int count) {
+        workers = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            final String threadName = "fs-shard-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public int size() {
+        return workers.length;
+    }
+
+    /**
+    * Run the task on the shard owning target. Its output is returned instead of printed.
+    */
+    public CompletableFuture<String> submit(FSObject target, Runnable task) {
+        return CompletableFuture.supplyAsync(() -> Logger.capture(task), ownerOf(target));
+    }
+
+    /**
+    * Run the task on the shard owning target and wait for it, printing its output here.
+    */
+    public void run(FSObject target, Runnable task) {
+        Logger.write(await(submit(target, task)));
+    }
+
+    public void shutdown() {
+        for (ExecutorService worker: workers) {
+            worker.shutdown();
+        }
+    }
+
+    public static String await(CompletableFuture<String> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return ex.toString() + System.lineSeparator();
+        } catch (ExecutionException ex) {
+            return ex.getCause().toString() + System.lineSeparator();
         }
     }
+
+    private ExecutorService ownerOf(FSObject target) {
+        String key = target.getTopLevelFolder().getName();
+        return workers[Math.floorMod(key.hashCode(), workers.length)];
+    }
 }
 
 /**
  * OSFileSystem: Represent a file system to operate on it
  */
 class OSFileSystem implements Serializable{
+    // Value computed for the first release, keeps the saved trees readable as the class changes
+    private static final long serialVersionUID = -2413726045229981052L;
     private static OSFileSystem INSTANCE = new OSFileSystem();
     private static final String FS_SERIALIZATION_NAME = "FileSystem.txt";
+    private static final int FS_SERIALIZATION_BUFFER = 1 << 16;
     private FSObject root;
     private FSObject currentPath;
+    private transient FSShards shards;
 
     public static OSFileSystem getFileSystem() {
         
@@ -186,9 +1308,45 @@ class OSFileSystem implements Serializable{
     }
 
     public void clean() {
+        root.releaseContent();
         initialize();
     }
 
+    /**
+    * Route the work on every top-level subtree to one of count worker shards.
+    * A count of 0 goes back to run everything on the calling thread.
+    */
+    public void startShards(int count) {
+        stopShards();
+        if (count > 0) {
+            shards = new FSShards(count);
+        }
+    }
+
+    public void stopShards() {
+        if (shards != null) {
+            shards.shutdown();
+            shards = null;
+        }
+    }
+
+    /**
+    * Run the task on the shard owning target, or right here if there are no shards.
+    * The work on root runs here too, one caller at a time. Shard tasks never lock root,
+    * so a root task can wait on them.
+    */
+    private void runOn(FSObject target, Runnable task) {
+        if (shards == null) {
+            task.run();
+        } else if (target.getFather() != null) {
+            shards.run(target, task);
+        } else {
+            synchronized (target) {
+                task.run();
+            }
+        }
+    }
+
     protected Object readResolve() {
         return INSTANCE;
     }
@@ -203,31 +1361,61 @@ class OSFileSystem implements Serializable{
     }
 
     public void createDir(String dirName) {
-        currentPath.createDir(dirName);
+        FSObject target = currentPath;
+        runOn(target, () -> target.createDir(dirName));
     }
 
-    private boolean changeDir(String dirName) {
-        boolean foundDir = true;
-
-        if (dirName.compareTo("..") == 0 && currentPath.getFather() == null) {
+    private FSObject findDir(FSObject from, String dirName) {
+        if (dirName.compareTo("..") == 0 && from.getFather() == null) {
             // This is root. Do nothing
-            return true;
-        } else if (dirName.compareTo("..") == 0 && currentPath.getFather() != null) {
-            currentPath = currentPath.getFather();
-        } else if (dirName.compareTo(".") != 0) {
-            FSObject subFolder = currentPath.getSubfolder(dirName);
-            if (subFolder != null) {
-                currentPath = subFolder;
+            return from;
+        } else if (dirName.compareTo("..") == 0) {
+            return from.getFather();
+        } else if (dirName.compareTo(".") == 0) {
+            return from;
+        }
+
+        return from.getSubfolder(dirName);
+    }
+
+    /**
+    * Walk a multi-faceted dir list from the current folder without moving it.
+    * Return null, after logging the error, if any of the dirs doesn't exist.
+    */
+    private FSObject findDir(String[] dirList) {
+        return findDir(currentPath, dirList);
+    }
+
+    /**
+    * With shards, the steps inside a top-level subtree run on the shard owning it,
+    * only the steps from root run here.
+    */
+    private FSObject findDir(FSObject from, String[] dirList) {
+        FSObject[] dir = {from};
+        int[] next = {0};
+
+        while (dir[0] != null && next[0] < dirList.length) {
+            if (shards == null || dir[0].getFather() == null) {
+                dir[0] = findDir(dir[0], dirList[next[0]++]);
             } else {
-                foundDir = false;
+                // Until the walk leaves the subtree back to root
+                shards.run(dir[0], () -> {
+                    while (dir[0] != null && dir[0].getFather() != null && next[0] < dirList.length) {
+                        dir[0] = findDir(dir[0], dirList[next[0]++]);
+                    }
+                });
             }
         }
 
-        if(!foundDir) {
+        if (dir[0] == null) {
             Logger.log(Errors.DIR_NOT_FOUND);
         }
 
-        return foundDir;
+        return dir[0];
+    }
+
+    private static String[] splitPath(String path) {
+        return path.isEmpty() ? new String[0] : path.split(FSObject.SEPARATOR);
     }
 
     /**
@@ -235,49 +1423,104 @@ class OSFileSystem implements Serializable{
     * Ex. subdir1/subdir1-1/subdir3
     */
     public boolean changeDir(String[] dirList) {
-        // Save current folder
-        FSObject currentFolderTemp = currentPath;
-        boolean success = true;
+        FSObject dir = findDir(dirList);
 
-        for(String dir: dirList) {
-            if(!this.changeDir(dir))
-            {
-                success = false;
-                break;
+        if (dir != null) {
+            currentPath = dir;
+        }
+
+        return dir != null;
+    }
+
+    /**
+    * Doesn't move the current folder, so it is safe to run next to other read-only commands.
+    * A listing over the limits ends with a cursor to continue it from.
+    */
+    public void listFilesAndFolders(boolean recursive, String dirName, int[] cursor) {
+        FSObject target = currentPath;
+
+        // This is a ls command over a subdirectory
+        if (dirName.length() > 0) {
+            target = findDir(dirName.split(FSObject.SEPARATOR));
+            if (target == null) {
+                return;
             }
         }
 
-        if(!success) {
-            // Restore current folder
-            currentPath = currentFolderTemp;
+        if (cursor != null && !target.isValidCursor(cursor, recursive)) {
+            Logger.log(Errors.INVALID_COMMAND);
+            return;
+        }
+
+        FSObject dir = target;
+        ListLimits limits = ListLimits.fromProperties();
+        String[] next = new String[1];
+
+        if (recursive && shards != null && dir.getFather() == null && limits.isUnlimited() && cursor == null) {
+            // Scatter over the shards, one task per top-level subtree
+            dir.listFilesAndFolders(shards);
+        } else {
+            // With limits the subtrees are listed one after the other, the first to hit them stops the rest
+            runOn(dir, () -> next[0] = dir.listFilesAndFolders(recursive, limits, cursor, shards));
+        }
+
+        if (next[0] != null) {
+            Logger.log(ListLimits.TRUNCATED + next[0]);
         }
+    }
+
+    public void createFile(String fileName) {
+        FSObject target = currentPath;
+        runOn(target, () -> target.createFile(fileName));
+    }
+
+    /**
+    * Create dirName in the folder at path, relative to root. It doesn't use the current folder,
+    * so several writers can call it at the same time once the shards are started.
+    */
+    public void createDir(String path, String dirName) {
+        FSObject target = findDir(root, splitPath(path));
+        if (target != null) {
+            runOn(target, () -> target.createDir(dirName));
+        }
+    }
+
+    /**
+    * Create fileName in the folder at path, relative to root. Safe for concurrent writers like createDir.
+    */
+    public void createFile(String path, String fileName) {
+        FSObject target = findDir(root, splitPath(path));
+        if (target != null) {
+            runOn(target, () -> target.createFile(fileName));
+        }
+    }
+
+    public void writeFile(String fileName, String text, boolean append) {
+        FSObject target = currentPath;
+        runOn(target, () -> target.writeFile(fileName, text, append));
+    }
 
-        return success;
+    public void printFile(String fileName) {
+        FSObject target = currentPath;
+        runOn(target, () -> target.printFile(fileName));
     }
 
-    public void listFilesAndFolders(boolean recursive, String dirName) {
-        FSObject currentFolderTemp = null;
-        
-        // This is a ls command over a subdirectory, so save current folder
-        if (dirName.length() > 0) {
-            currentFolderTemp = currentPath;
-            if(!this.changeDir(dirName.split(FSObject.SEPARATOR))) {
-                return;
-            }
-        }
+    public void printStat(String itemName) {
+        FSObject target = currentPath;
+        runOn(target, () -> target.printStat(itemName));
+    }
 
-        currentPath.listFilesAndFolders(recursive);
+    /**
+    * Print the changes inside dirName after each command that makes them, until the session ends
+    */
+    public void watch(String dirName, boolean recursive) {
+        FSObject dir = findDir(dirName.split(FSObject.SEPARATOR));
 
-        // Restore current folder
-        if (dirName.length() > 0) {
-            currentPath = currentFolderTemp;
+        if (dir != null) {
+            WatchService.getWatchService().subscribeSession(dir, recursive);
         }
     }
 
-    public void createFile(String fileName) {
-        currentPath.createFile(fileName);
-    }
-
     public static void serialize() {
         
         FileOutputStream file;
@@ -285,7 +1528,7 @@ class OSFileSystem implements Serializable{
 
         try {
             file = new FileOutputStream(FS_SERIALIZATION_NAME);
-            out = new ObjectOutputStream(file);
+            out = new ObjectOutputStream(new BufferedOutputStream(file, FS_SERIALIZATION_BUFFER));
             
             out.writeObject(OSFileSystem.getFileSystem());
 
@@ -303,7 +1546,7 @@ class OSFileSystem implements Serializable{
 
         try {
             file = new FileInputStream(FS_SERIALIZATION_NAME);
-            input = new ObjectInputStream(file);
+            input = new ObjectInputStream(new BufferedInputStream(file, FS_SERIALIZATION_BUFFER));
             
             INSTANCE = (OSFileSystem) input.readObject();
 
@@ -321,9 +1564,16 @@ class OSFileSystem implements Serializable{
 interface Command {
     public static final String ARG_DELIMITER = " ";
     public static final String ARG_RECURSIVE = "-r";
+    public static final String ARG_CURSOR = "-c";
 
     public void execute();
     public boolean validate();
+
+    /**
+    * Read-only commands don't change the tree nor the current folder,
+    * so they can run at the same time as each other.
+    */
+    public boolean isReadOnly();
 }
 
 class CurrentDir implements Command{
@@ -344,6 +1594,10 @@ class CurrentDir implements Command{
         return valid;
     }
 
+    public boolean isReadOnly() {
+        return true;
+    }
+
     public void execute() {
         if (validate()) {
             OSFileSystem.getFileSystem().printAbsPath();
@@ -357,6 +1611,7 @@ class ListContent implements Command {
     private boolean recursive = false;
     private String command;
     private String dirName;
+    private int[] cursor;
 
     public ListContent(String command)
     {
@@ -364,9 +1619,21 @@ class ListContent implements Command {
         this.dirName = "";
     }
 
+    /**
+    * Ex. ls -r subdir1 -c 3/0/12 continues a truncated listing
+    */
     public boolean validate() {
         String[] splittedCommands = command.split(Command.ARG_DELIMITER);
         boolean valid = true;
+        int length = splittedCommands.length;
+
+        if (length >= 3 && splittedCommands[length - 2].compareTo(Command.ARG_CURSOR) == 0) {
+            cursor = ListLimits.parseCursor(splittedCommands[length - 1]);
+            if (cursor == null) {
+                return false;
+            }
+            splittedCommands = Arrays.copyOf(splittedCommands, length - 2);
+        }
 
         if (splittedCommands.length > 3) {
             valid = false;
@@ -382,10 +1649,14 @@ class ListContent implements Command {
         return valid;
     }
 
+    public boolean isReadOnly() {
+        return true;
+    }
+
     public void execute()
     {
         if(validate()) {
-            OSFileSystem.getFileSystem().listFilesAndFolders(recursive, dirName);
+            OSFileSystem.getFileSystem().listFilesAndFolders(recursive, dirName, cursor);
         }
         else {
             Logger.log(Errors.INVALID_COMMAND);
@@ -420,6 +1691,10 @@ class CreateDir implements Command {
         return valid;
     }
 
+    public boolean isReadOnly() {
+        return false;
+    }
+
     public void execute() {
         if(validate()) {
             OSFileSystem.getFileSystem().createDir(dirName);
@@ -454,6 +1729,10 @@ class CreateFile implements Command {
         return valid;
     }
 
+    public boolean isReadOnly() {
+        return false;
+    }
+
     public void execute() {
         if(validate()) {
             OSFileSystem.getFileSystem().createFile(fileName);
@@ -484,6 +1763,10 @@ class ChangeDir implements Command {
         return valid;
     }
 
+    public boolean isReadOnly() {
+        return false;
+    }
+
     public void execute() {
         if(validate()){
             OSFileSystem.getFileSystem().changeDir(multiDir);
@@ -507,13 +1790,392 @@ class Quit implements Command {
 
         if (splittedCommands.length != 1) {
             valid = false;
+        }
+
+        return valid;
+    }
+
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    /**
+    * A valid quit is never executed, the caller stops before
+    */
+    public void execute() {
+        Logger.log(Errors.INVALID_COMMAND);
+    }
+}
+
+class WriteFile implements Command {
+
+    private String fileName = "";
+    private String text = "";
+    private String command;
+    private boolean append;
+
+    /**
+    * Write the rest of the line, plus a new line, as the content of the file.
+    * Ex. write file1 some text
+    */
+    public WriteFile(String command, boolean append) {
+        this.command = command;
+        this.append = append;
+    }
+
+    public boolean validate() {
+        String[] splittedCommands = command.split(Command.ARG_DELIMITER, 3);
+        boolean valid = true;
+
+        if (splittedCommands.length >= 2) {
+            fileName = splittedCommands[1];
+            text = (splittedCommands.length == 3 ? splittedCommands[2] : "") + System.lineSeparator();
+
+            if(fileName.length() >= FSObject.MAX_CHARS) {
+                Logger.log(Errors.INVALID_FILE_DIR);
+                valid = false;
+            }
+        } else {
+            Logger.log(Errors.INVALID_COMMAND);
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    public void execute() {
+        if(validate()) {
+            OSFileSystem.getFileSystem().writeFile(fileName, text, append);
+        }
+    }
+}
+
+class PrintFile implements Command {
+
+    private String fileName = "";
+    private String command;
+    private boolean stat;
+
+    /**
+    * Print the content of the file, or its size, ctime and mtime with stat
+    */
+    public PrintFile(String command, boolean stat) {
+        this.command = command;
+        this.stat = stat;
+    }
+
+    public boolean validate() {
+        String[] splittedCommands = command.split(Command.ARG_DELIMITER);
+        boolean valid = true;
+
+        if (splittedCommands.length == 2) {
+            fileName = splittedCommands[1];
+        } else {
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    public void execute() {
+        if(validate()) {
+            if (stat) {
+                OSFileSystem.getFileSystem().printStat(fileName);
+            } else {
+                OSFileSystem.getFileSystem().printFile(fileName);
+            }
+        } else {
+            Logger.log(Errors.INVALID_COMMAND);
+        }
+    }
+}
+
+class Stats implements Command {
+
+    private String command;
+
+    public Stats(String command) {
+        this.command = command;
+    }
+
+    public boolean validate() {
+        return command.split(Command.ARG_DELIMITER).length == 1;
+    }
+
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    public void execute() {
+        if(validate()) {
+            ChunkStore.getStore().printStats();
+        } else {
             Logger.log(Errors.INVALID_COMMAND);
         }
+    }
+}
+
+class Watch implements Command {
+
+    private boolean recursive = false;
+    private String dirName = "";
+    private String command;
+
+    /**
+    * Ex. watch subdir1 -r
+    */
+    public Watch(String command) {
+        this.command = command;
+    }
+
+    public boolean validate() {
+        String[] splittedCommands = command.split(Command.ARG_DELIMITER);
+        boolean valid = true;
+
+        if (splittedCommands.length == 2) {
+            dirName = splittedCommands[1];
+        } else if (splittedCommands.length == 3 && splittedCommands[2].compareTo(Command.ARG_RECURSIVE) == 0) {
+            dirName = splittedCommands[1];
+            recursive = true;
+        } else {
+            valid = false;
+        }
 
         return valid;
     }
 
+    /**
+    * Not read-only: the mutations after it must be seen
+    */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    public void execute() {
+        if(validate()) {
+            OSFileSystem.getFileSystem().watch(dirName, recursive);
+        } else {
+            Logger.log(Errors.INVALID_COMMAND);
+        }
+    }
+}
+
+class Unrecognized implements Command {
+
+    private String command;
+
+    public Unrecognized(String command) {
+        this.command = command;
+    }
+
+    public boolean validate() {
+        return false;
+    }
+
+    public boolean isReadOnly() {
+        return true;
+    }
+
     public void execute() {
+        Logger.log(Errors.UNRECOGNIZED_COMMAND);
+    }
+}
+
+/**
+ * SpscQueue: Bounded lock-free queue between exactly one producer thread and one consumer thread.
+ * A side that has to wait parks until the other side unparks it, an idle queue uses no CPU.
+ */
+class SpscQueue<T> {
+    private final Object[] items;
+    private final int mask;
+    // Next slot to take, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to put, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // The thread parked on an empty or a full queue, if any
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    /**
+    * The capacity is rounded up to a power of two
+    */
+    public SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        items = new Object[size];
+        mask = size - 1;
+    }
+
+    public boolean offer(T item) {
+        long t = tail.get();
+        if (t - head.get() == items.length) {
+            return false;
+        }
+        items[(int) t & mask] = item;
+        // Not lazySet: the write must be seen before waitingConsumer is read
+        tail.set(t + 1);
+        unpark(waitingConsumer);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        T item = (T) items[index];
+        items[index] = null;
+        head.set(h + 1);
+        unpark(waitingProducer);
+        return item;
+    }
+
+    /**
+    * Wait until there is room. This is the back pressure on a faster producer.
+    */
+    public void put(T item) {
+        while (!offer(item)) {
+            waitingProducer = Thread.currentThread();
+            // Check again once registered, the consumer could have made room just before
+            if (tail.get() - head.get() == items.length) {
+                LockSupport.park(this);
+            }
+            waitingProducer = null;
+        }
+    }
+
+    public T take() {
+        T item;
+        while ((item = poll()) == null) {
+            waitingConsumer = Thread.currentThread();
+            // Check again once registered, the producer could have added one just before
+            if (head.get() == tail.get()) {
+                LockSupport.park(this);
+            }
+            waitingConsumer = null;
+        }
+        return item;
+    }
+
+    private static void unpark(Thread waiting) {
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+}
+
+/**
+ * CommandPipeline: Run the commands in three stages, each one on its own thread.
+ * The calling thread reads and parses, an executor thread runs the commands and a
+ * writer thread prints their output in the same order they were read.
+ * Consecutive read-only commands run concurrently on a pool, a command that changes
+ * the tree or the current folder waits for them before running.
+ */
+class CommandPipeline {
+    private static final int QUEUE_SIZE = 1024;
+    private static final Command END_OF_COMMANDS = new Quit("");
+    private static final CompletableFuture<String> END_OF_OUTPUT = CompletableFuture.completedFuture("");
+
+    private final SpscQueue<Command> commands = new SpscQueue<Command>(QUEUE_SIZE);
+    private final SpscQueue<CompletableFuture<String>> outputs =
+            new SpscQueue<CompletableFuture<String>>(QUEUE_SIZE);
+    private final ExecutorService readers;
+
+    public CommandPipeline() {
+        readers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "fs-reader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+    * Run every command read from sc until a valid quit.
+    * If the input ends first, the commands already read are still run and printed before
+    * the error goes up, as it does without the pipeline.
+    */
+    public void run(Scanner sc) {
+        Thread executor = new Thread(this::execute, "fs-executor");
+        Thread writer = new Thread(this::write, "fs-writer");
+        executor.start();
+        writer.start();
+
+        try {
+            do {
+                Command cmd = Main.parseCommand(sc.nextLine());
+                if (cmd instanceof Quit && cmd.validate()) {
+                    break;
+                }
+                commands.put(cmd);
+            } while(true);
+        } finally {
+            commands.put(END_OF_COMMANDS);
+
+            try {
+                executor.join();
+                writer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                readers.shutdown();
+            }
+        }
+    }
+
+    private void execute() {
+        List<CompletableFuture<String>> inFlight = new ArrayList<CompletableFuture<String>>();
+        Command cmd;
+
+        while ((cmd = commands.take()) != END_OF_COMMANDS) {
+            final Command current = cmd;
+            CompletableFuture<String> output;
+
+            if (current.isReadOnly()) {
+                output = CompletableFuture.supplyAsync(() -> run(current), readers);
+                inFlight.add(output);
+            } else {
+                // Barrier: the reads before this command must see the tree as it was
+                for (CompletableFuture<String> read: inFlight) {
+                    read.join();
+                }
+                inFlight.clear();
+                // Only mutations publish events, they follow the output of the command
+                output = CompletableFuture.completedFuture(run(current)
+                        + Logger.capture(WatchService.getWatchService()::printSessionEvents));
+            }
+
+            outputs.put(output);
+        }
+
+        outputs.put(END_OF_OUTPUT);
+    }
+
+    /**
+    * A failing command must not stop the executor, its error becomes the output of the command
+    */
+    private static String run(Command cmd) {
+        try {
+            return Logger.capture(cmd::execute);
+        } catch (RuntimeException ex) {
+            return ex.toString() + System.lineSeparator();
+        }
+    }
+
+    private void write() {
+        CompletableFuture<String> output;
+
+        while ((output = outputs.take()) != END_OF_OUTPUT) {
+            Logger.write(FSShards.await(output));
+        }
     }
 }
 
@@ -522,6 +2184,64 @@ class Quit implements Command {
  */
 public class Main {  
 
+    // Number of worker shards owning the top-level subtrees, 0 runs everything on the main thread
+    public static final String SHARDS_PROPERTY = "fs.shards";
+
+    // Overlap reading, executing and printing the commands on separate threads
+    public static final String PIPELINE_PROPERTY = "fs.pipeline";
+
+    // Keep a single copy of file chunks with the same content
+    public static final String DEDUP_PROPERTY = "fs.dedup";
+
+    public static Command parseCommand(String strCommand) {
+        if (strCommand.startsWith(CommandsName.QUIT.toString())) {
+            return new Quit(strCommand);
+        } else if (strCommand.startsWith(CommandsName.PWD.toString())) {
+            return new CurrentDir(strCommand);
+        } else if (strCommand.startsWith(CommandsName.LS.toString())) {
+            return new ListContent(strCommand);
+        } else if (strCommand.startsWith(CommandsName.MKDIR.toString())) {
+            return new CreateDir(strCommand);
+        } else if (strCommand.startsWith(CommandsName.CD.toString())) {
+            return new ChangeDir(strCommand);
+        } else if (strCommand.startsWith(CommandsName.TOUCh.toString())) {
+            return new CreateFile(strCommand);
+        } else if (strCommand.startsWith(CommandsName.WRITE.toString())) {
+            return new WriteFile(strCommand, false);
+        } else if (strCommand.startsWith(CommandsName.APPEND.toString())) {
+            return new WriteFile(strCommand, true);
+        } else if (strCommand.startsWith(CommandsName.CAT.toString())) {
+            return new PrintFile(strCommand, false);
+        } else if (strCommand.startsWith(CommandsName.STATS.toString())) {
+            return new Stats(strCommand);
+        } else if (strCommand.startsWith(CommandsName.STAT.toString())) {
+            // After stats, which starts the same
+            return new PrintFile(strCommand, true);
+        } else if (strCommand.startsWith(CommandsName.WATCH.toString())) {
+            return new Watch(strCommand);
+        }
+
+        return new Unrecognized(strCommand);
+    }
+
+    /**
+    * Run every command once on an empty tree, discarding the output, so a training run
+    * loads the classes of a normal session. The snapshot is neither read nor written.
+    * Used to build the AppCDS archive, see the appcds profile.
+    */
+    public static void warmup() {
+        String[] commands = {"mkdir warmup", "cd warmup", "touch file1", "write file2 text", "append file2 text",
+                             "cat file2", "stat file2", "ls", "ls -r", "ls warmup", "pwd", "stats", "cd ..",
+                             "vi", "quit dummy"};
+
+        Logger.capture(() -> {
+            for (String strCommand: commands) {
+                parseCommand(strCommand).execute();
+            }
+        });
+        OSFileSystem.getFileSystem().clean();
+    }
+
     public static void main(String[] args) {
         /* Enter your code here. Read input from STDIN. Print output to STDOUT */
         
@@ -530,40 +2250,41 @@ public class Main {
         */
         boolean runUnitTests = (args.length > 0 && args[0].compareTo("RunUnitTests") == 0);
 
+        if (args.length > 0 && args[0].compareTo("Warmup") == 0) {
+            warmup();
+            return;
+        }
+
         Scanner sc = new Scanner(System.in);
         String strCommand;
         
+        ChunkStore.getStore().setEnabled(Boolean.getBoolean(DEDUP_PROPERTY));
+
         if(!runUnitTests) {
             OSFileSystem.deserialize();
         }
 
-        do {
-            strCommand = sc.nextLine();
-            Command cmd = null;
+        OSFileSystem.getFileSystem().startShards(Integer.getInteger(SHARDS_PROPERTY, 0));
 
-            if (strCommand.startsWith(CommandsName.QUIT.toString())) {
-                cmd = new Quit(strCommand);
-                if (cmd.validate()) {
+        if (Boolean.getBoolean(PIPELINE_PROPERTY)) {
+            new CommandPipeline().run(sc);
+        } else {
+            do {
+                strCommand = sc.nextLine();
+                Command cmd = parseCommand(strCommand);
+
+                if (cmd instanceof Quit && cmd.validate()) {
                     break;
                 }
-            } else if (strCommand.startsWith(CommandsName.PWD.toString())) {
-                cmd = new CurrentDir(strCommand);
-            } else if (strCommand.startsWith(CommandsName.LS.toString())) {
-                cmd = new ListContent(strCommand);
-            } else if (strCommand.startsWith(CommandsName.MKDIR.toString())) {
-                cmd = new CreateDir(strCommand);
-            } else if (strCommand.startsWith(CommandsName.CD.toString())) {
-                cmd = new ChangeDir(strCommand);
-            } else if (strCommand.startsWith(CommandsName.TOUCh.toString())) {
-                cmd = new CreateFile(strCommand);
-            }
-
-            if(cmd != null)
+
                 cmd.execute();
-            else
-                Logger.log(Errors.UNRECOGNIZED_COMMAND);
+                WatchService.getWatchService().printSessionEvents();
+            } while(true);
+        }
 
-        } while(true);
+        WatchService.getWatchService().close();
+        WatchService.getWatchService().printSessionEvents();
+        OSFileSystem.getFileSystem().stopShards();
 
         if(!runUnitTests) {
             OSFileSystem.serialize();
@@ -25,4 +25,16 @@ public class BaseTest {
         Assert.assertEquals(String.join("", expectedOutput),
                 systemOutRule.getLogWithNormalizedLineSeparator());
     }
+
+    /**
+    * Same as runTest, with a system property set only while it runs
+    */
+    protected void runTestWithProperty(String key, String value, String[] expectedOutput, String... input) {
+        System.setProperty(key, value);
+        try {
+            runTest(expectedOutput, input);
+        } finally {
+            System.clearProperty(key);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.salesforce.tests.fs;
+
+/**
+ * Shard benchmark: several writers create their own subtrees at the same time through the
+ * path API of OSFileSystem, once per shard count. Not run by the unit tests.
+ *
+ * java -cp target/test-classes:target/classes com.salesforce.tests.fs.ShardBenchmark [maxShards]
+ *
+ * -Dbench.writers: concurrent writers, the default is maxShards
+ * -Dbench.runs: runs per shard count, the best one is reported
+ */
+public class ShardBenchmark {
+
+    private static final int DIRS_PER_WRITER = 50;
+    private static final int FILES_PER_DIR = 200;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxShards = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int writers = Integer.getInteger("bench.writers", maxShards);
+        int runs = Integer.getInteger("bench.runs", 3);
+        OSFileSystem fs = OSFileSystem.getFileSystem();
+
+        System.out.printf("cpus=%d writers=%d%n", Runtime.getRuntime().availableProcessors(), writers);
+        for (int shards = 1; shards <= maxShards; shards++) {
+            long best = Long.MAX_VALUE;
+            long ops = 0;
+
+            for (int i = 0; i < runs; i++) {
+                fs.startShards(shards);
+                long start = System.nanoTime();
+                ops = runWriters(writers, DIRS_PER_WRITER, FILES_PER_DIR);
+                best = Math.min(best, System.nanoTime() - start);
+                fs.stopShards();
+                fs.clean();
+            }
+
+            System.out.printf("shards=%d ops=%d time=%d ms throughput=%d ops/s%n",
+                    shards, ops, best / 1000000, ops * 1000000000L / best);
+        }
+    }
+
+    /**
+    * Every writer creates /root/wN with dirsPerWriter folders of filesPerDir files.
+    * Return the number of operations done.
+    */
+    public static long runWriters(int writers, int dirsPerWriter, int filesPerDir) throws InterruptedException {
+        OSFileSystem fs = OSFileSystem.getFileSystem();
+        Thread[] threads = new Thread[writers];
+
+        for (int w = 0; w < writers; w++) {
+            String top = "w" + w;
+            threads[w] = new Thread(() -> {
+                fs.createDir("", top);
+                for (int d = 0; d < dirsPerWriter; d++) {
+                    String dir = "d" + d;
+                    fs.createDir(top, dir);
+                    for (int f = 0; f < filesPerDir; f++) {
+                        fs.createFile(top + FSObject.SEPARATOR + dir, "f" + f);
+                    }
+                }
+            }, "writer-" + w);
+            threads[w].start();
+        }
+
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        return (long) writers * (1 + dirsPerWriter * (1 + filesPerDir));
+    }
+}
@@ -0,0 +1,118 @@
+package com.salesforce.tests.fs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Startup benchmark: time from launching Main until the output of its first command,
+ * on a saved tree of each given size. Not run by the unit tests.
+ *
+ * java -cp target/test-classes:target/classes com.salesforce.tests.fs.StartupBenchmark [nodes...]
+ *
+ * -Dbench.classpath: classpath of Main, use the jar to run with the AppCDS archive
+ * -Dbench.jvmArgs: extra JVM options, ex. -XX:SharedArchiveFile=/abs/path/target/cmd-processor.jsa
+ * -Dbench.runs: launches per tree size, the median is reported
+ */
+public class StartupBenchmark {
+
+    private static final int FILES_PER_DIR = 1000;
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = args.length > 0 ? args : new String[] {"0", "1000000"};
+        int runs = Integer.getInteger("bench.runs", 5);
+
+        for (String size: sizes) {
+            int nodes = Integer.parseInt(size);
+            File dir = Files.createTempDirectory("fs-startup").toFile();
+
+            // Build the snapshot with a single session
+            launch(dir, out -> writeTree(out, nodes));
+            if (!new File(dir, "FileSystem.txt").exists()) {
+                throw new IllegalStateException("Main didn't save a snapshot in " + dir);
+            }
+
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                times[i] = launch(dir, out -> out.println("pwd"));
+            }
+            Arrays.sort(times);
+
+            System.out.printf("nodes=%d snapshot=%d bytes time-to-first-command median=%d ms min=%d ms%n",
+                    nodes, new File(dir, "FileSystem.txt").length(), times[runs / 2], times[0]);
+        }
+    }
+
+    /**
+    * Wide tree: folders of FILES_PER_DIR files each under root
+    */
+    private static void writeTree(PrintStream out, int nodes) {
+        for (int created = 0; created < nodes; created += FILES_PER_DIR + 1) {
+            String dirName = "dir" + created;
+            out.println("mkdir " + dirName);
+            out.println("cd " + dirName);
+            for (int i = 0; i < FILES_PER_DIR && created + 1 + i < nodes; i++) {
+                out.println("touch file" + i);
+            }
+            out.println("cd ..");
+        }
+    }
+
+    /**
+    * Run Main in dir with the given commands, and return the milliseconds until its first output line
+    */
+    private static long launch(File dir, Session session) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String jvmArgs = System.getProperty("bench.jvmArgs", "").trim();
+        if (!jvmArgs.isEmpty()) {
+            command.addAll(Arrays.asList(jvmArgs.split(" +")));
+        }
+        command.add("-cp");
+        command.add(absoluteClasspath(System.getProperty("bench.classpath", System.getProperty("java.class.path"))));
+        command.add(Main.class.getName());
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+
+        OutputStream stdin = process.getOutputStream();
+        PrintStream out = new PrintStream(stdin, false, StandardCharsets.UTF_8.name());
+        session.write(out);
+        out.println("quit");
+        out.close();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        reader.readLine();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        while (reader.readLine() != null) {
+            // Drain the rest so the process can exit
+        }
+        process.waitFor();
+
+        return elapsed;
+    }
+
+    /**
+    * Main runs from a temporary dir, so relative entries would not be found
+    */
+    private static String absoluteClasspath(String classpath) {
+        List<String> entries = new ArrayList<String>();
+        for (String entry: classpath.split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private interface Session {
+        void write(PrintStream out);
+    }
+}
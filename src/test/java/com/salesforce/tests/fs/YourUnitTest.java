@@ -1,5 +1,11 @@
 package com.salesforce.tests.fs;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 /**
@@ -74,4 +80,422 @@ public class YourUnitTest extends BaseTest{
                                     "pwd",
                                     "quit");
     }
+
+    @Test
+    public void shardedTree() {
+        String[] expectedResults = {
+                "Directory already exists\n", // mkdir sub2 on shard of sub1
+
+                "/root\n",              // ls -r
+                "/root/sub1\n",
+                "/root/sub1/sub2\n",
+                "sub2-file1\n",
+                "root-file\n",
+                "/root/sub3\n",
+                "sub3-file1\n",
+
+                "/root/sub1\n",         // ls -r sub1
+                "/root/sub1/sub2\n",
+                "sub2-file1\n",
+        };
+
+        runTestWithProperty(Main.SHARDS_PROPERTY, "4", expectedResults,
+                                    "mkdir sub1",
+                                    "cd sub1",
+                                    "mkdir sub2",
+                                    "mkdir sub2",
+                                    "cd sub2",
+                                    "touch sub2-file1",
+                                    "cd ../..",
+                                    "touch root-file",
+                                    "mkdir sub3",
+                                    "cd sub3",
+                                    "touch sub3-file1",
+                                    "cd ..",
+                                    "ls -r",
+                                    "ls -r sub1",
+                                    "quit");
+    }
+
+    @Test
+    public void concurrentShardWriters() throws InterruptedException {
+        OSFileSystem fs = OSFileSystem.getFileSystem();
+        fs.startShards(4);
+        try {
+            ShardBenchmark.runWriters(4, 5, 20);
+
+            // root, 4 writer folders, 5 folders each and 20 files in every one of them
+            String listing = Logger.capture(() -> fs.listFilesAndFolders(true, "", null));
+            Assert.assertEquals(1 + 4 + 4 * 5 + 4 * 5 * 20, listing.split(System.lineSeparator()).length);
+        } finally {
+            fs.stopShards();
+            fs.clean();
+        }
+    }
+
+    @Test
+    public void pipelinedCommands() {
+        String[] expectedResults = {
+                "Unrecognized command\n", // vi abc
+                "/root/sub1\n",           // pwd
+                "/root\n",                // ls
+                "sub1\n",
+                "Invalid Command\n",      // quit dummy
+                "Directory not found\n",  // ls sub2
+                "/root/sub1\n",           // ls -r sub1
+                "sub1-file1\n",
+                "/root\n",                // pwd
+        };
+
+        runTestWithProperty(Main.PIPELINE_PROPERTY, "true", expectedResults,
+                                    "mkdir sub1",
+                                    "vi abc",
+                                    "cd sub1",
+                                    "pwd",
+                                    "touch sub1-file1",
+                                    "cd ..",
+                                    "ls",
+                                    "quit dummy",
+                                    "ls sub2",
+                                    "ls -r sub1",
+                                    "pwd",
+                                    "quit");
+    }
+
+    @Test(timeout = 10000)
+    public void pipelineWithoutQuit() {
+        String[] expectedResults = {
+                "/root\n",                // ls
+                "sub1\n",
+        };
+
+        try {
+            runTestWithProperty(Main.PIPELINE_PROPERTY, "true", expectedResults,
+                                    "mkdir sub1",
+                                    "ls");
+            Assert.fail("The end of the input was not reported");
+        } catch (NoSuchElementException ex) {
+            // Like without the pipeline, but only once every command read was printed
+            Assert.assertEquals(String.join("", expectedResults),
+                    systemOutRule.getLogWithNormalizedLineSeparator());
+        } finally {
+            OSFileSystem.getFileSystem().clean();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void spscQueueHandOff() throws InterruptedException {
+        // Tiny queue so both the producer and the consumer have to park and be woken up
+        SpscQueue<Integer> queue = new SpscQueue<Integer>(2);
+        int count = 100000;
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                queue.put(i);
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(Integer.valueOf(i), queue.take());
+        }
+        producer.join();
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void fileContent() {
+        String longLine = makeLongLine(10000);
+        String[] expectedResults = {
+                "hello world\n",          // cat file1
+                "second\n",               // cat file1 after write
+                "third\n",
+                "File not found\n",       // cat file2
+                "Invalid Command\n",      // write
+                longLine + "\n",          // cat big, spans three chunks
+                "/root\n",                // ls
+                "file1\n",
+                "big\n",
+        };
+        runTest(expectedResults,    "write file1 hello world",
+                                    "cat file1",
+                                    "write file1 second",
+                                    "append file1 third",
+                                    "cat file1",
+                                    "cat file2",
+                                    "write",
+                                    "append big " + longLine,
+                                    "cat big",
+                                    "ls",
+                                    "quit");
+    }
+
+    @Test
+    public void fileMetadata() {
+        systemInMock.provideLines("write file1 hello", "mkdir sub1", "stat file1", "stat sub1", "stat file2", "quit");
+        Main.main(new String[] {"RunUnitTests"});
+
+        String time = "\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d+)?Z";
+        String[] lines = systemOutRule.getLogWithNormalizedLineSeparator().split("\n");
+        Assert.assertEquals(9, lines.length);
+        Assert.assertEquals("File: file1", lines[0]);
+        Assert.assertEquals("Size: " + ("hello" + System.lineSeparator()).length(), lines[1]);
+        Assert.assertTrue(lines[2], lines[2].matches("Ctime: " + time));
+        Assert.assertTrue(lines[3], lines[3].matches("Mtime: " + time));
+        Assert.assertEquals("Folder: sub1", lines[4]);
+        Assert.assertEquals("Size: 0", lines[5]);
+        Assert.assertEquals("File not found", lines[8]);
+    }
+
+    @Test(timeout = 10000)
+    public void touchUpdatesMtime() throws InterruptedException {
+        FSObject dir = new FSObject("root", FSType.FOLDER, null);
+        dir.createFile("file1");
+        FSObject file = dir.getFile("file1");
+        long created = file.getMtime();
+
+        // The clock can be as coarse as 15 ms, wait until it moves on
+        while (System.currentTimeMillis() <= created) {
+            Thread.sleep(1);
+        }
+        dir.createFile("file1");
+
+        Assert.assertEquals(created, file.getCtime());
+        Assert.assertTrue(file.getMtime() > created);
+        Assert.assertEquals(0, file.getSize());
+    }
+
+    @Test
+    public void dedupFileContent() {
+        String longLine = makeLongLine(10000);
+        String[] expectedResults = {
+                "Dedup: on\n",            // stats, two copies of three chunks plus file3
+                "Unique chunks: 4\n",
+                "Chunk references: 7\n",
+                "Dedup ratio: 1.75\n",
+                "Memory saved: 12288 bytes\n",
+                longLine + "\n",          // cat file1
+                longLine + "\n",          // cat file2, its tail was copied on append
+                "more\n",
+                "Dedup: on\n",            // stats
+                "Unique chunks: 5\n",
+                "Chunk references: 7\n",
+                "Dedup ratio: 1.40\n",
+                "Memory saved: 8192 bytes\n",
+        };
+
+        runTestWithProperty(Main.DEDUP_PROPERTY, "true", expectedResults,
+                                    "write file1 " + longLine,
+                                    "write file2 " + longLine,
+                                    "write file3 small",
+                                    "stats",
+                                    "append file2 more",
+                                    "cat file1",
+                                    "cat file2",
+                                    "stats",
+                                    "quit");
+    }
+
+    @Test
+    public void dedupAppendAfterFullChunk() {
+        // With its line separator the first write fills a chunk exactly
+        String fullLine = makeLongLine(ChunkAllocator.CHUNK_SIZE - System.lineSeparator().length());
+        String[] expectedResults = {
+                "Dedup: on\n",            // stats, the full chunk is still held once
+                "Unique chunks: 2\n",
+                "Chunk references: 2\n",
+                "Dedup ratio: 1.00\n",
+                "Memory saved: 0 bytes\n",
+                fullLine + "\n",          // cat file1
+                "x\n",
+        };
+
+        runTestWithProperty(Main.DEDUP_PROPERTY, "true", expectedResults,
+                                    "write file1 " + fullLine,
+                                    "append file1 x",
+                                    "stats",
+                                    "cat file1",
+                                    "quit");
+    }
+
+    @Test
+    public void pagedListing() {
+        String[] expectedResults = {
+                "/root\n",                // ls -r
+                "a\n",
+                "/root/d1\n",
+                "Listing truncated, cursor: 1/0\n",
+                "x\n",                    // ls -r -c 1/0
+                "y\n",
+                "b\n",
+                "x\n",                    // ls -r d1 -c 0
+                "y\n",
+                "Invalid Command\n",      // ls -r -c abc
+                "Invalid Command\n",      // ls -r -c 3
+                "Invalid Command\n",      // ls -r -c 1/5
+                "Invalid Command\n",      // ls -r -c 0/0
+                "Invalid Command\n",      // ls -c 1/0
+        };
+
+        runTestWithProperty(ListLimits.MAX_NODES_PROPERTY, "3", expectedResults,
+                                    "touch a",
+                                    "mkdir d1",
+                                    "touch b",
+                                    "cd d1",
+                                    "touch x",
+                                    "touch y",
+                                    "cd ..",
+                                    "ls -r",
+                                    "ls -r -c 1/0",
+                                    "ls -r d1 -c 0",
+                                    "ls -r -c abc",
+                                    "ls -r -c 3",
+                                    "ls -r -c 1/5",
+                                    "ls -r -c 0/0",
+                                    "ls -c 1/0",
+                                    "quit");
+    }
+
+    @Test
+    public void listLimitsCountUtf8Bytes() {
+        // 3 characters, 6 bytes in UTF-8
+        String name = "\u00e9\u00e8\u00ea";
+        long lineBytes = 6 + System.lineSeparator().length();
+
+        ListLimits limits = new ListLimits(0, 2 * lineBytes - 1, 0);
+        Assert.assertTrue(limits.charge(name));
+        Assert.assertFalse(limits.charge(name));
+
+        limits = new ListLimits(0, 2 * lineBytes, 0);
+        Assert.assertTrue(limits.charge(name));
+        Assert.assertTrue(limits.charge(name));
+    }
+
+    @Test
+    public void watchSubtree() {
+        runTest(watchExpectedResults(), watchCommands());
+    }
+
+    @Test
+    public void watchWithPipeline() {
+        runTestWithProperty(Main.PIPELINE_PROPERTY, "true", watchExpectedResults(), watchCommands());
+    }
+
+    @Test(timeout = 10000)
+    public void watchDeliversOffThread() throws InterruptedException {
+        FSObject dir = new FSObject("root", FSType.FOLDER, null);
+        FSObject file = new FSObject("file1", FSType.FILE, dir);
+        CountDownLatch slowListener = new CountDownLatch(1);
+        List<String> threads = new ArrayList<String>();
+
+        WatchService.getWatchService().subscribe(dir, false, event -> {
+            threads.add(Thread.currentThread().getName());
+            try {
+                slowListener.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            // The writer doesn't wait for the listener, which is still blocked
+            WatchService.getWatchService().publish(FSEventType.CREATED, file);
+            WatchService.getWatchService().publish(FSEventType.MODIFIED, file);
+            slowListener.countDown();
+
+            WatchService.getWatchService().awaitDelivery();
+            Assert.assertEquals("[fs-watch]", threads.toString());
+        } finally {
+            WatchService.getWatchService().close();
+        }
+    }
+
+    @Test
+    public void watchCoalescing() {
+        List<FSEvent> events = new ArrayList<FSEvent>();
+        FSObject dir = new FSObject("root", FSType.FOLDER, null);
+        WatchSubscription subscription = new WatchSubscription(dir, true, events::add, 8);
+
+        // A pending creation covers the modifications after it
+        subscription.offer(new FSEvent(FSEventType.CREATED, "/root/file1"));
+        subscription.offer(new FSEvent(FSEventType.MODIFIED, "/root/file1"));
+        // Repeated modifications are delivered once
+        subscription.offer(new FSEvent(FSEventType.MODIFIED, "/root/file2"));
+        subscription.offer(new FSEvent(FSEventType.MODIFIED, "/root/file2"));
+        subscription.offer(new FSEvent(FSEventType.MODIFIED, "/root/file2"));
+        subscription.deliver();
+
+        Assert.assertEquals("[created /root/file1, modified /root/file2]", events.toString());
+
+        // Once delivered, the next change on the same path is a new event
+        events.clear();
+        subscription.offer(new FSEvent(FSEventType.MODIFIED, "/root/file1"));
+        subscription.deliver();
+
+        Assert.assertEquals("[modified /root/file1]", events.toString());
+    }
+
+    @Test
+    public void watchOverflow() {
+        List<FSEvent> events = new ArrayList<FSEvent>();
+        FSObject dir = new FSObject("root", FSType.FOLDER, null);
+        WatchSubscription subscription = new WatchSubscription(dir, true, events::add, 2);
+
+        for (int i = 0; i < 5; i++) {
+            subscription.offer(new FSEvent(FSEventType.CREATED, "/root/file" + i));
+        }
+        subscription.deliver();
+
+        Assert.assertEquals("[created /root/file0, created /root/file1, overflow /root]", events.toString());
+
+        // The overflow is reported once, the ring has room again
+        events.clear();
+        subscription.offer(new FSEvent(FSEventType.CREATED, "/root/file5"));
+        subscription.deliver();
+
+        Assert.assertEquals("[created /root/file5]", events.toString());
+    }
+
+    /**
+    * Event lines follow the output of the command that made them
+    */
+    private String[] watchExpectedResults() {
+        return new String[] {
+                "Directory not found\n",              // watch nodir
+                "Invalid Command\n",                  // watch
+                "created /root/sub1/sub2\n",          // mkdir sub2
+                "created /root/sub1/sub2/file1\n",    // touch file1
+                "/root/sub1/sub2\n",                  // pwd
+                "File not found\n",                   // cat nofile, no event
+                "created /root/sub1/file2\n",         // write file2 text
+                "text\n",                             // cat file2
+        };
+    }
+
+    private String[] watchCommands() {
+        return new String[] {       "mkdir sub1",
+                                    "watch nodir",
+                                    "watch",
+                                    "watch sub1 -r",
+                                    "touch root-file",
+                                    "cd sub1",
+                                    "mkdir sub2",
+                                    "cd sub2",
+                                    "touch file1",
+                                    "touch file1",
+                                    "pwd",
+                                    "cat nofile",
+                                    "cd ..",
+                                    "write file2 text",
+                                    "cat file2",
+                                    "quit"};
+    }
+
+    private String makeLongLine(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+
+        return sb.toString();
+    }
 }